@@ -31,6 +31,7 @@ import butterknife.ButterKnife;
 import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.schedulers.Schedulers;
+import rx.subscriptions.CompositeSubscription;
 
 /**
  * @author kitttn
@@ -40,8 +41,18 @@ public class CropActivity extends AppCompatActivity {
     private static final float maxHeight = 1024.0f;
     private static final float maxWidth = 1024.0f;
 
+    // Shared by all crop screens, so a batch of photos reuses one set of buffers.
+    // Computation threads may run several pipelines at once: touch these only while holding the lock on suggester
+    private static final CropSuggester suggester = new CropSuggester();
+    private static final int[] window = new int[4];
+    private static int[] pixels = new int[0];
+
     private Uri fileURI;
     private boolean cropToSquare = true;
+    private boolean autoCrop = false;
+    private volatile String sourceKey;
+    private final CompositeSubscription subscriptions = new CompositeSubscription();
+    private final Runnable previewLoader = () -> compressBitmapAndUpload(fileURI);
 
     @Bind(R.id.toolbar)
     Toolbar toolbar;
@@ -55,36 +66,119 @@ public class CropActivity extends AppCompatActivity {
         setContentView(R.layout.activity_crop);
         ButterKnife.bind(this);
 
-        toolbar.setTitle("Cropping photo");
-        toolbar.setTitleTextColor(ContextCompat.getColor(this, R.color.white));
-        toolbar.inflateMenu(R.menu.activity_crop);
-        toolbar.setOnMenuItemClickListener(item -> {
-            if (item.getItemId() == R.id.action_done) {
-                onCropPhotoClicked();
-                return true;
-            }
-            return false;
-        });
-
         fileURI = getIntent().getParcelableExtra("IMAGE_PATH");
         cropToSquare = getIntent().getBooleanExtra("CROP_SQUARE", true);
+        autoCrop = getIntent().getBooleanExtra("CROP_AUTO", false);
+
+        toolbar.setTitle("Cropping photo");
+        toolbar.setTitleTextColor(ContextCompat.getColor(this, R.color.white));
+        if (!autoCrop) {
+            toolbar.inflateMenu(R.menu.activity_crop);
+            toolbar.setOnMenuItemClickListener(item -> {
+                if (item.getItemId() == R.id.action_done) {
+                    onCropPhotoClicked();
+                    return true;
+                }
+                return false;
+            });
+        }
 
         view.setCropMode(cropToSquare ? CropImageView.CropMode.RATIO_1_1 : CropImageView.CropMode.RATIO_FREE);
-        view.post(() -> compressBitmapAndUpload(fileURI));
+        if (autoCrop)
+            autoCropAndReturn(fileURI);
+        else
+            view.post(previewLoader);
+    }
+
+    @Override
+    protected void onDestroy() {
+        view.removeCallbacks(previewLoader);
+        subscriptions.unsubscribe();
+        super.onDestroy();
     }
 
     private void compressBitmapAndUpload(Uri fileURI) {
-        Observable.defer(() -> Observable.just(fileURI))
-                .map(this::compress)
+        subscriptions.add(Observable.defer(() -> Observable.just(fileURI))
+                .map(this::loadPreview)
+                .subscribeOn(Schedulers.computation())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(bmp -> view.setImageBitmap(bmp)));
+    }
+
+    /**
+     * Crops without user interaction, using window from {@link CropSuggester}
+     */
+    private void autoCropAndReturn(Uri fileURI) {
+        subscriptions.add(Observable.defer(() -> Observable.just(fileURI))
+                .map(this::cropAutomatically)
                 .subscribeOn(Schedulers.computation())
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(bmp -> view.setImageBitmap(bmp));
+                .subscribe(this::returnResult, err -> {
+                    Log.i(TAG, "autoCropAndReturn: Can't crop photo: " + err.getMessage());
+                    setResult(RESULT_CANCELED);
+                    finish();
+                }));
+    }
+
+    /**
+     * Automatic crop of the same source and mode always gives the same result, so it's looked up
+     * before decoding anything. Works only for sources with known modification time
+     * @return absolute path to the cropped photo
+     */
+    private String cropAutomatically(Uri fileURI) {
+        String autoKey = null;
+        long modified = getModifiedTime(fileURI);
+        if (!fileURI.getScheme().equals("file") && modified > 0) {
+            autoKey = CropIndex.buildAutoKey(CropIndex.buildSourceKey(fileURI.toString(), modified, null), cropToSquare);
+            String existing = CropIndex.getInstance(this).lookup(autoKey);
+            if (existing != null) {
+                Log.i(TAG, "cropAutomatically: Already cropped, reusing: " + existing);
+                return existing;
+            }
+        }
+
+        String path = saveAndReturnPath(suggestCrop(loadPreview(fileURI)), fileURI);
+        if (autoKey != null)
+            CropIndex.getInstance(this).put(autoKey, path);
+        return path;
+    }
+
+    /**
+     * Decodes preview and remembers identity of the source for {@link CropIndex}
+     */
+    private Bitmap loadPreview(Uri fileURI) {
+        Bitmap bmp = compress(fileURI);
+        sourceKey = CropIndex.buildSourceKey(fileURI.toString(), getModifiedTime(fileURI), bmp);
+        return bmp;
     }
 
     public void onCropPhotoClicked() {
         Bitmap bmp = view.getCroppedBitmap();
-        String link = saveAndReturnPath(bmp, fileURI);
+        returnResult(saveAndReturnPath(bmp, fileURI));
+    }
+
+    private Bitmap suggestCrop(Bitmap bmp) {
+        int w = bmp.getWidth(), h = bmp.getHeight();
+        int left, top, right, bottom;
+        synchronized (suggester) {
+            if (pixels.length < w * h)
+                pixels = new int[w * h];
+            bmp.getPixels(pixels, 0, w, 0, 0, w, h);
+            suggester.suggest(pixels, w, h, cropToSquare ? 1.0f : 0.0f, window);
+            left = window[0];
+            top = window[1];
+            right = window[2];
+            bottom = window[3];
+        }
+        Log.i(TAG, "suggestCrop: Window: " + left + "," + top + " - " + right + "," + bottom);
 
+        Bitmap result = Bitmap.createBitmap(bmp, left, top, right - left, bottom - top);
+        if (result != bmp)
+            bmp.recycle();
+        return result;
+    }
+
+    private void returnResult(String link) {
         Intent data = new Intent();
         data.putExtra("PATH", link);
         setResult(RESULT_OK, data);
@@ -95,10 +189,22 @@ public class CropActivity extends AppCompatActivity {
         try {
             File file;
             String name = "image" + System.currentTimeMillis();
+            String key = null;
             if (path.getScheme().equals("file")) {
                 file = new File(path.getEncodedPath());
-            } else
+            } else {
+                CropIndex index = CropIndex.getInstance(this);
+                if (sourceKey != null) {
+                    key = CropIndex.buildKey(sourceKey, cropToSquare, bmp);
+                    String existing = index.lookup(key);
+                    if (existing != null) {
+                        Log.i(TAG, "saveAndReturnPath: Already cropped, reusing: " + existing);
+                        bmp.recycle();
+                        return existing;
+                    }
+                }
                 file = File.createTempFile(name, ".jpg", getExternalFilesDir(Environment.DIRECTORY_PICTURES));
+            }
 
             ByteArrayOutputStream os = new ByteArrayOutputStream();
             bmp.compress(Bitmap.CompressFormat.JPEG, 90, os);
@@ -112,6 +218,8 @@ public class CropActivity extends AppCompatActivity {
             bmp.recycle();
 
             Log.i(TAG, "saveAndReturnPath: Path to save: " + file.getAbsolutePath());
+            if (key != null)
+                CropIndex.getInstance(this).put(key, file.getAbsolutePath());
 
             return file.getAbsolutePath();
         } catch (IOException e) {
@@ -247,6 +355,24 @@ public class CropActivity extends AppCompatActivity {
         return orientation;
     }
 
+    /**
+     * @return last modification time of the source in milliseconds, or 0 if it's unknown
+     */
+    public long getModifiedTime(Uri photoUri) {
+        if (photoUri.getScheme().equals("file"))
+            return new File(photoUri.getEncodedPath()).lastModified();
+
+        Cursor cursor = getContentResolver().query(photoUri,
+                new String[]{MediaStore.Images.ImageColumns.DATE_MODIFIED}, null, null, null);
+        if (cursor == null)
+            return 0;
+
+        long modified = cursor.moveToFirst() ? cursor.getLong(0) * 1000 : 0;
+        cursor.close();
+
+        return modified;
+    }
+
     private static int getExifOrientation(String src) throws IOException {
         ExifInterface exif = new ExifInterface(src);
         return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, 1);
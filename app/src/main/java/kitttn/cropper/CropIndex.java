@@ -0,0 +1,229 @@
+package kitttn.cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Small on-disk index, which maps a source photo and crop parameters to the file we've already written for them.
+ * <p>Index is stored as append-only log, one "key\tpath" line per record. Later lines win over earlier ones.
+ * On open the log is read into memory, and when it holds too many stale lines, it's compacted into a fresh file.</p>
+ *
+ * This class is thread-safe.
+ * @author kitttn
+ */
+
+public class CropIndex {
+    private static final String TAG = "CropIndex";
+    private static final String INDEX_NAME = "crop-index.log";
+    private static final int COMPACT_MIN_LINES = 64;
+
+    private static CropIndex index;
+
+    private final File logFile;
+    private final Map<String, String> entries = new HashMap<>();
+    private int lines = 0;
+
+    CropIndex(File logFile) {
+        this.logFile = logFile;
+        load();
+    }
+
+    /**
+     * Looks for previously saved output
+     * @param key key built with {@link #buildKey(String, boolean, Bitmap)}
+     * @return absolute path to existing output file or null, if there is no such file
+     */
+    public synchronized String lookup(String key) {
+        String path = entries.get(key);
+        if (path == null)
+            return null;
+
+        if (!new File(path).exists()) {
+            Log.i(TAG, "lookup: Output was removed, forgetting: " + path);
+            entries.remove(key);
+            return null;
+        }
+
+        return path;
+    }
+
+    /**
+     * Remembers output file for the key. Record is appended to the log immediately
+     * @param key key built with {@link #buildKey(String, boolean, Bitmap)}
+     * @param path absolute path to the output file
+     */
+    public synchronized void put(String key, String path) {
+        entries.put(key, path);
+        try {
+            Writer writer = new FileWriter(logFile, true);
+            writer.write(key + "\t" + path + "\n");
+            writer.close();
+            lines++;
+        } catch (IOException e) {
+            Log.i(TAG, "put: Can't append to index: " + e.getMessage());
+        }
+
+        if (lines >= COMPACT_MIN_LINES && lines > entries.size() * 2)
+            compact();
+    }
+
+    // =========== private methods ============
+
+    private void load() {
+        if (!logFile.exists())
+            return;
+
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(logFile));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                int tab = line.indexOf('\t');
+                if (tab > 0)
+                    entries.put(line.substring(0, tab), line.substring(tab + 1));
+            }
+            reader.close();
+            Log.i(TAG, "load: Loaded " + entries.size() + " entries from " + lines + " lines");
+        } catch (IOException e) {
+            Log.i(TAG, "load: Can't read index, starting from scratch: " + e.getMessage());
+            entries.clear();
+            lines = 0;
+        }
+    }
+
+    /**
+     * Rewrites the log with live entries only, dropping overwritten records and removed outputs
+     */
+    private void compact() {
+        File tmp = new File(logFile.getPath() + ".tmp");
+        try {
+            Writer writer = new FileWriter(tmp);
+            int written = 0;
+            Iterator<Map.Entry<String, String>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, String> entry = it.next();
+                if (!new File(entry.getValue()).exists()) {
+                    it.remove();
+                    continue;
+                }
+                writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+                written++;
+            }
+            writer.close();
+
+            if (!tmp.renameTo(logFile)) {
+                Log.i(TAG, "compact: Can't replace index file!");
+                tmp.delete();
+                return;
+            }
+
+            Log.i(TAG, "compact: Compacted " + lines + " lines to " + written);
+            lines = written;
+        } catch (IOException e) {
+            Log.i(TAG, "compact: Can't compact index: " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    // ==================== keys and hashing ================
+
+    /**
+     * Builds identity of the source photo.
+     * @param uri source uri
+     * @param modified last modification time of the source, or value <= 0, if it's unknown
+     * @param preview decoded preview of the source. Used as fallback, if modification time is unknown, otherwise may be null
+     */
+    public static String buildSourceKey(String uri, long modified, Bitmap preview) {
+        if (modified > 0)
+            return uri + "@" + modified;
+        return uri + "#" + Long.toHexString(dHash(preview));
+    }
+
+    /**
+     * Builds key for the crop result. Crop is identified by CRC32 of its exact pixels,
+     * so a frame moved even by one pixel gives a different key
+     * @param sourceKey key from {@link #buildSourceKey(String, long, Bitmap)}
+     * @param cropToSquare crop mode, which was used
+     * @param cropped result of the crop
+     */
+    public static String buildKey(String sourceKey, boolean cropToSquare, Bitmap cropped) {
+        return sourceKey + "|" + (cropToSquare ? "1_1" : "free") + "|"
+                + cropped.getWidth() + "x" + cropped.getHeight() + "|" + Long.toHexString(pixelsCrc(cropped));
+    }
+
+    /**
+     * Builds key for the automatic crop. It depends only on the source and mode, so it can be looked up before decoding
+     * @param sourceKey key from {@link #buildSourceKey(String, long, Bitmap)}, built from modification time
+     * @param cropToSquare crop mode, which was used
+     */
+    public static String buildAutoKey(String sourceKey, boolean cropToSquare) {
+        return sourceKey + "|" + (cropToSquare ? "1_1" : "free") + "|auto";
+    }
+
+    /**
+     * CRC32 over all pixels of the bitmap, row by row
+     */
+    public static long pixelsCrc(Bitmap bmp) {
+        int w = bmp.getWidth(), h = bmp.getHeight();
+        int[] row = new int[w];
+        ByteBuffer bytes = ByteBuffer.allocate(w * 4);
+        CRC32 crc = new CRC32();
+        for (int y = 0; y < h; ++y) {
+            bmp.getPixels(row, 0, w, 0, y, w, 1);
+            bytes.clear();
+            bytes.asIntBuffer().put(row);
+            crc.update(bytes.array(), 0, w * 4);
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Difference hash: scales image to 9x8 and compares luminance of horizontally adjacent pixels.
+     * Tolerant to small re-encoding artifacts, but sensitive to content changes.
+     * Near-identical images share the hash, so use it only to identify the source, never the crop
+     */
+    public static long dHash(Bitmap bmp) {
+        Bitmap small = Bitmap.createScaledBitmap(bmp, 9, 8, true);
+        int[] pixels = new int[9 * 8];
+        small.getPixels(pixels, 0, 9, 0, 0, 9, 8);
+        if (small != bmp)
+            small.recycle();
+
+        long hash = 0;
+        for (int y = 0; y < 8; ++y)
+            for (int x = 0; x < 8; ++x) {
+                hash <<= 1;
+                if (luminance(pixels[y * 9 + x]) > luminance(pixels[y * 9 + x + 1]))
+                    hash |= 1;
+            }
+
+        return hash;
+    }
+
+    private static int luminance(int color) {
+        return (Color.red(color) * 299 + Color.green(color) * 587 + Color.blue(color) * 114) / 1000;
+    }
+
+    public static CropIndex getInstance(Context context) {
+        synchronized (CropIndex.class) {
+            if (index == null)
+                index = new CropIndex(new File(context.getApplicationContext().getFilesDir(), INDEX_NAME));
+            return index;
+        }
+    }
+}
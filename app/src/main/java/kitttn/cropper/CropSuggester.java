@@ -0,0 +1,176 @@
+package kitttn.cropper;
+
+/**
+ * Suggests crop window for a photo. Works on ARGB pixels of the downsampled preview, without any Android classes.
+ * <p>Photo is split into a coarse grid, and every cell gets a saliency score: average edge energy of its pixels
+ * plus a bonus for the share of skin-like pixels. Gradients are taken at full resolution, so detail finer than a cell still counts.
+ * Scores are summed into integral image, so the sum for any window costs four lookups.
+ * The largest window of the requested ratio is then slid over the grid, and the one with the best sum wins.
+ * When scores are equal, window closer to the center wins.</p>
+ *
+ * Buffers are reused between calls, so suggesting for photos of the same size doesn't allocate.
+ * Not thread-safe: use one instance per thread.
+ * @author kitttn
+ */
+
+public class CropSuggester {
+    private static final int GRID_SIZE = 256;
+    private static final int SKIN_BONUS = 128;
+
+    private int[] energy = new int[0];
+    private int[] skin = new int[0];
+    private int[] integral = new int[0];
+    private int[] previousRow = new int[0];
+    private int[] currentRow = new int[0];
+
+    /**
+     * Finds the best window of the given ratio
+     * @param pixels ARGB pixels of the photo, row by row
+     * @param width width of the photo
+     * @param height height of the photo
+     * @param ratio width / height of the window. If it's <= 0, the whole photo is returned
+     * @param out array of at least 4 elements, receives left, top, right, bottom of the window in pixels
+     */
+    public void suggest(int[] pixels, int width, int height, float ratio, int[] out) {
+        int winW = width, winH = height;
+        if (ratio > 0) {
+            winW = Math.min(width, Math.round(height * ratio));
+            winH = Math.min(height, Math.round(winW / ratio));
+        }
+
+        int step = Math.max(1, (Math.max(width, height) + GRID_SIZE - 1) / GRID_SIZE);
+        int gw = width / step, gh = height / step;
+        int cellsW = winW / step, cellsH = winH / step;
+
+        if (ratio <= 0 || gw < 2 || gh < 2 || (cellsW >= gw && cellsH >= gh)) {
+            placeWindow(width, height, winW, winH, (width - winW) / 2, (height - winH) / 2, out);
+            return;
+        }
+
+        ensureCapacity(gw, gh, width);
+        accumulate(pixels, width, step, gw, gh);
+        buildIntegral(gw, gh, step);
+
+        int bestX = 0, bestY = 0;
+        long bestScore = -1;
+        long bestDistance = Long.MAX_VALUE;
+        int centerX = (gw - cellsW) / 2, centerY = (gh - cellsH) / 2;
+        int row = gw + 1;
+
+        for (int y = 0; y + cellsH <= gh; ++y)
+            for (int x = 0; x + cellsW <= gw; ++x) {
+                long score = integral[(y + cellsH) * row + x + cellsW] - integral[y * row + x + cellsW]
+                        - integral[(y + cellsH) * row + x] + integral[y * row + x];
+                long distance = (long) (x - centerX) * (x - centerX) + (long) (y - centerY) * (y - centerY);
+                if (score > bestScore || (score == bestScore && distance < bestDistance)) {
+                    bestScore = score;
+                    bestDistance = distance;
+                    bestX = x;
+                    bestY = y;
+                }
+            }
+
+        placeWindow(width, height, winW, winH, bestX * step, bestY * step, out);
+    }
+
+    // =========== private methods ============
+
+    private void ensureCapacity(int gw, int gh, int width) {
+        int cells = gw * gh;
+        if (energy.length < cells) {
+            energy = new int[cells];
+            skin = new int[cells];
+        }
+        int integralSize = (gw + 1) * (gh + 1);
+        if (integral.length < integralSize)
+            integral = new int[integralSize];
+        if (currentRow.length < width) {
+            previousRow = new int[width];
+            currentRow = new int[width];
+        }
+    }
+
+    /**
+     * Sums edge energy and skin pixels of every cell. Edge energy of a pixel is the luminance difference
+     * with its left and upper neighbours
+     */
+    private void accumulate(int[] pixels, int width, int step, int gw, int gh) {
+        for (int i = 0; i < gw * gh; ++i) {
+            energy[i] = 0;
+            skin[i] = 0;
+        }
+
+        int usedW = gw * step, usedH = gh * step;
+        int[] previous = previousRow, current = currentRow;
+        for (int y = 0; y < usedH; ++y) {
+            boolean hasPrevious = y > 0;
+            int cellRow = (y / step) * gw;
+            int rowStart = y * width;
+            int left = luminance(pixels[rowStart]);
+            for (int cx = 0, x = 0; cx < gw; ++cx) {
+                int sum = 0, skinCount = 0;
+                for (int end = x + step; x < end; ++x) {
+                    int color = pixels[rowStart + x];
+                    int l = luminance(color);
+                    current[x] = l;
+                    sum += Math.abs(l - left);
+                    if (hasPrevious)
+                        sum += Math.abs(l - previous[x]);
+                    skinCount += skin(color);
+                    left = l;
+                }
+                energy[cellRow + cx] += sum;
+                skin[cellRow + cx] += skinCount;
+            }
+
+            int[] tmp = previous;
+            previous = current;
+            current = tmp;
+        }
+    }
+
+    /**
+     * Builds integral image of cell scores. integral[(y + 1) * (gw + 1) + x + 1] is the sum of all cells above and left, inclusive
+     */
+    private void buildIntegral(int gw, int gh, int step) {
+        int row = gw + 1;
+        int area = step * step;
+        for (int x = 0; x < row; ++x)
+            integral[x] = 0;
+
+        for (int y = 0; y < gh; ++y) {
+            int rowSum = 0;
+            integral[(y + 1) * row] = 0;
+            for (int x = 0; x < gw; ++x) {
+                int i = y * gw + x;
+                rowSum += (energy[i] + SKIN_BONUS * skin[i]) / area;
+                integral[(y + 1) * row + x + 1] = integral[y * row + x + 1] + rowSum;
+            }
+        }
+    }
+
+    private static int luminance(int color) {
+        return (((color >> 16) & 0xff) * 77 + ((color >> 8) & 0xff) * 150 + (color & 0xff) * 29) >> 8;
+    }
+
+    /**
+     * Simple RGB skin rule, good enough to pull the window towards people in daylight photos:
+     * r > 95, g > 40, b > 20, r - g > 15, r > b. Red is the max channel then, so the usual "max - min > 15"
+     * follows from r - g > 15.
+     * Every condition holds when its difference is negative, so the sign bit of their AND gives the answer without branches
+     * @return 1 for skin-like color, 0 otherwise
+     */
+    private static int skin(int color) {
+        int r = (color >> 16) & 0xff, g = (color >> 8) & 0xff, b = color & 0xff;
+        return ((95 - r) & (40 - g) & (20 - b) & (15 - r + g) & (b - r)) >>> 31;
+    }
+
+    private static void placeWindow(int width, int height, int winW, int winH, int left, int top, int[] out) {
+        left = Math.max(0, Math.min(left, width - winW));
+        top = Math.max(0, Math.min(top, height - winH));
+        out[0] = left;
+        out[1] = top;
+        out[2] = left + winW;
+        out[3] = top + winH;
+    }
+}
@@ -15,6 +15,8 @@ import android.widget.ArrayAdapter;
 import java.io.File;
 import java.io.IOException;
 
+import rx.functions.Action1;
+
 
 /**
  * @author kitttn
@@ -28,13 +30,15 @@ public class PhotoChooserCropperActivity extends ListActivity {
     private Uri imagePath;
     private AlertDialog dialog;
     private boolean cropToSquare = true;
+    private boolean autoCrop = false;
+    private final Action1<Boolean> permissionResult = res -> {
+        if (res)
+            showDialogue();
+    };
 
     public void showChooser() {
         RxPermissionManager mgr = RxPermissionManager.getInstance(this);
-        mgr.setResult(res -> {
-            if (res)
-                showDialogue();
-        });
+        mgr.setResult(permissionResult);
 
         String[] permissions = {
                 Manifest.permission.WRITE_EXTERNAL_STORAGE,
@@ -48,6 +52,7 @@ public class PhotoChooserCropperActivity extends ListActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         cropToSquare = getIntent().getBooleanExtra("SQUARE_CROP", true);
+        autoCrop = getIntent().getBooleanExtra("AUTO_CROP", false);
         showChooser();
     }
 
@@ -59,6 +64,12 @@ public class PhotoChooserCropperActivity extends ListActivity {
         super.finish();
     }
 
+    @Override
+    protected void onDestroy() {
+        RxPermissionManager.getInstance(this).clearResult(permissionResult);
+        super.onDestroy();
+    }
+
     // =========== private methods ============
 
     private void showDialogue() {
@@ -143,6 +154,7 @@ public class PhotoChooserCropperActivity extends ListActivity {
         if (resultCode == Activity.RESULT_OK) {
             Intent intent = new Intent(this, CropActivity.class);
             intent.putExtra("CROP_SQUARE", cropToSquare);
+            intent.putExtra("CROP_AUTO", autoCrop);
             intent.putExtra("IMAGE_PATH", imagePath);
             startActivityForResult(intent, CROP_PHOTO_REQUEST_CODE);
         }
@@ -154,8 +166,16 @@ public class PhotoChooserCropperActivity extends ListActivity {
         start(launchFrom, requestCode, true);
     }
     public static void start(Activity launchFrom, int requestCode, boolean cropToSquare) {
+        start(launchFrom, requestCode, cropToSquare, false);
+    }
+
+    /**
+     * @param autoCrop if true, crop frame is placed automatically and result is returned without showing the cropper
+     */
+    public static void start(Activity launchFrom, int requestCode, boolean cropToSquare, boolean autoCrop) {
         Intent i = new Intent(launchFrom, PhotoChooserCropperActivity.class);
         i.putExtra("SQUARE_CROP", cropToSquare);
+        i.putExtra("AUTO_CROP", autoCrop);
         launchFrom.startActivityForResult(i, requestCode);
     }
 }
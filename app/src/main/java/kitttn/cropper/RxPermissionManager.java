@@ -60,6 +60,23 @@ public class RxPermissionManager {
         this.result = result;
     }
 
+    /**
+     * Removes result callback, so this singleton doesn't keep its owner alive.
+     * Call it when the owner is destroyed.
+     * @param result callback, previously passed to setResult(). Nothing happens, if another callback was set since
+     */
+    public void clearResult(Action1<Boolean> result) {
+        if (this.result == result)
+            this.result = null;
+    }
+
+    /**
+     * @return current result callback, or null if it was cleared. Used in tests to check, that the owner was released
+     */
+    Action1<Boolean> getResult() {
+        return result;
+    }
+
     /**
      * Request needed permission(s) with this method
      * @param permissions - String[] of the permission(s) you want to process.
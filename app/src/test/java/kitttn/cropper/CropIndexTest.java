@@ -0,0 +1,185 @@
+package kitttn.cropper;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author kitttn
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CropIndexTest {
+    private static final int SOURCE_W = 41;
+    private static final int SOURCE_H = 40;
+    private static final int CROP = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File log;
+    private File first;
+    private File second;
+
+    @Before
+    public void setUp() throws Exception {
+        log = new File(folder.getRoot(), "crop-index.log");
+        first = folder.newFile("first.jpg");
+        second = folder.newFile("second.jpg");
+    }
+
+    @Test
+    public void lookup_returnsPutPath() throws Exception {
+        CropIndex index = new CropIndex(log);
+        index.put("a", first.getAbsolutePath());
+
+        assertEquals(first.getAbsolutePath(), index.lookup("a"));
+        assertNull(index.lookup("b"));
+    }
+
+    @Test
+    public void load_restoresEntriesAndLaterLinesWin() throws Exception {
+        CropIndex index = new CropIndex(log);
+        index.put("a", first.getAbsolutePath());
+        index.put("b", first.getAbsolutePath());
+        index.put("a", second.getAbsolutePath());
+
+        CropIndex reloaded = new CropIndex(log);
+        assertEquals(second.getAbsolutePath(), reloaded.lookup("a"));
+        assertEquals(first.getAbsolutePath(), reloaded.lookup("b"));
+        assertEquals(3, countLines(log));
+    }
+
+    @Test
+    public void lookup_forgetsRemovedOutput() throws Exception {
+        CropIndex index = new CropIndex(log);
+        index.put("a", first.getAbsolutePath());
+        assertTrue(first.delete());
+
+        assertNull(index.lookup("a"));
+    }
+
+    @Test
+    public void put_compactsStaleLines() throws Exception {
+        CropIndex index = new CropIndex(log);
+        index.put("removed", second.getAbsolutePath());
+        assertTrue(second.delete());
+        for (int i = 0; i < 100; ++i)
+            index.put("a", first.getAbsolutePath());
+
+        assertTrue(countLines(log) < 64);
+
+        CropIndex reloaded = new CropIndex(log);
+        assertEquals(first.getAbsolutePath(), reloaded.lookup("a"));
+        assertNull(reloaded.lookup("removed"));
+    }
+
+    // ==================== keys ================
+
+    @Test
+    public void buildKey_samePixelsGiveSameKey() throws Exception {
+        int[] source = source();
+
+        String key = CropIndex.buildKey("src", true, crop(source, 0));
+        String again = CropIndex.buildKey("src", true, crop(source, 0));
+
+        assertEquals(key, again);
+    }
+
+    @Test
+    public void buildKey_cropNudgedByOnePixelGivesDifferentKey() throws Exception {
+        int[] source = source();
+
+        String original = CropIndex.buildKey("src", true, crop(source, 0));
+        String nudged = CropIndex.buildKey("src", true, crop(source, 1));
+
+        assertNotEquals(original, nudged);
+    }
+
+    @Test
+    public void buildKey_dependsOnModeAndSource() throws Exception {
+        Bitmap cropped = crop(source(), 0);
+
+        assertNotEquals(CropIndex.buildKey("src", true, cropped), CropIndex.buildKey("src", false, cropped));
+        assertNotEquals(CropIndex.buildKey("src", true, cropped), CropIndex.buildKey("other", true, cropped));
+    }
+
+    @Test
+    public void pixelsCrc_changesWithSinglePixel() throws Exception {
+        int[] pixels = new int[CROP * CROP];
+        Bitmap before = Bitmap.createBitmap(pixels, CROP, CROP, Bitmap.Config.ARGB_8888);
+        pixels[CROP * CROP / 2] = 0xff010101;
+        Bitmap after = Bitmap.createBitmap(pixels, CROP, CROP, Bitmap.Config.ARGB_8888);
+
+        assertNotEquals(CropIndex.pixelsCrc(before), CropIndex.pixelsCrc(after));
+    }
+
+    @Test
+    public void buildSourceKey_usesModificationTimeWhenKnown() throws Exception {
+        assertEquals("content://img/1@1000", CropIndex.buildSourceKey("content://img/1", 1000, null));
+        assertNotEquals(CropIndex.buildSourceKey("content://img/1", 1000, null),
+                CropIndex.buildSourceKey("content://img/1", 2000, null));
+    }
+
+    @Test
+    public void buildSourceKey_fallsBackToStableHash() throws Exception {
+        int[] source = source();
+
+        String key = CropIndex.buildSourceKey("content://img/1", 0, crop(source, 0));
+        String again = CropIndex.buildSourceKey("content://img/1", 0, crop(source, 0));
+
+        assertEquals(key, again);
+        assertTrue(key.startsWith("content://img/1#"));
+        assertEquals(CropIndex.dHash(crop(source, 0)), CropIndex.dHash(crop(source, 0)));
+    }
+
+    @Test
+    public void buildAutoKey_dependsOnMode() throws Exception {
+        assertNotEquals(CropIndex.buildAutoKey("src", true), CropIndex.buildAutoKey("src", false));
+    }
+
+    /**
+     * Horizontal gradient with noise, so every column differs from its neighbours
+     */
+    private static int[] source() {
+        int[] pixels = new int[SOURCE_W * SOURCE_H];
+        for (int y = 0; y < SOURCE_H; ++y)
+            for (int x = 0; x < SOURCE_W; ++x) {
+                int v = (x * 6 + (x * 31 + y * 17) % 5) & 0xff;
+                pixels[y * SOURCE_W + x] = 0xff000000 | (v << 16) | (v << 8) | v;
+            }
+        return pixels;
+    }
+
+    /**
+     * Square crop of the source, starting at the given column
+     */
+    private static Bitmap crop(int[] source, int left) {
+        int[] pixels = new int[CROP * CROP];
+        for (int y = 0; y < CROP; ++y)
+            System.arraycopy(source, y * SOURCE_W + left, pixels, y * CROP, CROP);
+        return Bitmap.createBitmap(pixels, CROP, CROP, Bitmap.Config.ARGB_8888);
+    }
+
+    private static int countLines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        int lines = 0;
+        while (reader.readLine() != null)
+            lines++;
+        reader.close();
+        return lines;
+    }
+}
@@ -0,0 +1,31 @@
+package kitttn.cropper;
+
+import org.junit.Test;
+
+/**
+ * Timing of {@link CropSuggester} on a typical preview. Excluded from the regular test run,
+ * start it with <code>./gradlew testDebugUnitTest -Pbenchmark</code>
+ * @author kitttn
+ */
+public class CropSuggesterBenchmark {
+    private static final int WARM_UP = 100;
+    private static final int RUNS = 500;
+
+    @Test
+    public void preview1024x768() throws Exception {
+        int w = 1024, h = 768;
+        int[] pixels = CropSuggesterTest.texture(w, h);
+        int[] window = new int[4];
+        CropSuggester suggester = new CropSuggester();
+
+        for (int i = 0; i < WARM_UP; ++i)
+            suggester.suggest(pixels, w, h, 1.0f, window);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; ++i)
+            suggester.suggest(pixels, w, h, 1.0f, window);
+        double millis = (System.nanoTime() - start) / 1e6 / RUNS;
+
+        System.out.println("CropSuggester 1024x768: " + String.format("%.3f", millis) + " ms per call");
+    }
+}
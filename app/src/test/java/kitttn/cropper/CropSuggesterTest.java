@@ -0,0 +1,109 @@
+package kitttn.cropper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author kitttn
+ */
+public class CropSuggesterTest {
+    private static final int GRAY = 0xff808080;
+    private static final int SKIN = 0xffc89678;
+
+    private final CropSuggester suggester = new CropSuggester();
+    private final int[] window = new int[4];
+
+    @Test
+    public void suggest_keepsRatioAndBounds() throws Exception {
+        int[][] sizes = {{1, 1}, {3, 1000}, {1000, 3}, {1023, 767}, {767, 1023}, {257, 513}, {1024, 768}};
+        float[] ratios = {1.0f, 4.0f / 3.0f, 0.75f, 16.0f / 9.0f};
+
+        for (int[] size : sizes)
+            for (float ratio : ratios) {
+                int w = size[0], h = size[1];
+                suggester.suggest(texture(w, h), w, h, ratio, window);
+                String where = w + "x" + h + " @ " + ratio;
+
+                assertTrue(where, window[0] >= 0 && window[1] >= 0);
+                assertTrue(where, window[2] <= w && window[3] <= h);
+                int winW = window[2] - window[0], winH = window[3] - window[1];
+                assertTrue(where, winW > 0 && winH > 0);
+                assertTrue(where, winW == w || winH == h);
+                assertEquals(where, ratio, (float) winW / winH, Math.max(1.0f / winW, 1.0f / winH) * ratio + 0.01f);
+            }
+    }
+
+    @Test
+    public void suggest_returnsWholePhotoForFreeRatio() throws Exception {
+        suggester.suggest(texture(640, 480), 640, 480, 0.0f, window);
+
+        assertArrayEquals(new int[]{0, 0, 640, 480}, window);
+    }
+
+    @Test
+    public void suggest_centersOnFlatPhoto() throws Exception {
+        int[] pixels = flat(1024, 768);
+        suggester.suggest(pixels, 1024, 768, 1.0f, window);
+
+        assertArrayEquals(new int[]{128, 0, 896, 768}, window);
+    }
+
+    @Test
+    public void suggest_movesTowardsTexture() throws Exception {
+        assertMovesTowardsChecker(4);
+    }
+
+    @Test
+    public void suggest_movesTowardsTextureFinerThanGrid() throws Exception {
+        // grid step is 4 pixels here, finer or misaligned checkers must not be aliased away
+        assertMovesTowardsChecker(1);
+        assertMovesTowardsChecker(2);
+        assertMovesTowardsChecker(3);
+    }
+
+    @Test
+    public void suggest_movesTowardsSkin() throws Exception {
+        int w = 768, h = 1024;
+        int[] pixels = flat(w, h);
+        for (int y = 50; y < 250; ++y)
+            for (int x = 200; x < 500; ++x)
+                pixels[y * w + x] = SKIN;
+
+        suggester.suggest(pixels, w, h, 1.0f, window);
+
+        assertTrue(window[1] <= 50);
+        assertTrue(window[3] >= 250);
+    }
+
+    // =========== helpers ============
+
+    private void assertMovesTowardsChecker(int period) {
+        int w = 1024, h = 768;
+        int[] pixels = flat(w, h);
+        for (int y = 0; y < h; ++y)
+            for (int x = 900; x < w; ++x)
+                pixels[y * w + x] = ((x / period + y / period) % 2 == 0) ? 0xffffffff : 0xff000000;
+
+        suggester.suggest(pixels, w, h, 1.0f, window);
+
+        assertEquals("Checker period " + period, w, window[2]);
+    }
+
+    private static int[] flat(int w, int h) {
+        int[] pixels = new int[w * h];
+        for (int i = 0; i < pixels.length; ++i)
+            pixels[i] = GRAY;
+        return pixels;
+    }
+
+    static int[] texture(int w, int h) {
+        int[] pixels = new int[w * h];
+        int seed = 42;
+        for (int i = 0; i < pixels.length; ++i) {
+            seed = seed * 1103515245 + 12345;
+            pixels[i] = 0xff000000 | (seed >>> 8);
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,276 @@
+package kitttn.cropper;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowActivity;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ActivityController;
+
+import java.io.ByteArrayInputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.plugins.RxJavaHooks;
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs chooser -> crop -> result flow many times and checks, that every destroyed Activity and its Bitmaps are released.
+ * Computation work runs on a {@link TestScheduler}, so it stays pending until the test triggers it.
+ * Screens left while work is pending must not be kept alive by it.
+ * @author kitttn
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class LeakSoakTest {
+    private static final String AUTHORITY = "kitttn.cropper.test";
+    private static final Uri IMAGE = Uri.parse("content://" + AUTHORITY + "/images/1");
+    private static final int GALLERY_REQUEST_CODE = 1;
+    private static final int WARM_UP = 50;
+    private static final int ITERATIONS = 300;
+    private static final int GC_ATTEMPTS = 20;
+
+    private final List<WeakReference<Activity>> activities = new ArrayList<>();
+    private final List<WeakReference<Bitmap>> bitmaps = new ArrayList<>();
+    private final TestScheduler computation = new TestScheduler();
+
+    @Before
+    public void setUp() throws Exception {
+        RxJavaHooks.setOnComputationScheduler(scheduler -> computation);
+
+        shadowOf(RuntimeEnvironment.application).grantPermissions(
+                Manifest.permission.WRITE_EXTERNAL_STORAGE,
+                Manifest.permission.CAMERA);
+        ShadowContentResolver.registerProvider(AUTHORITY, new ImageProvider());
+        shadowOf(RuntimeEnvironment.application.getContentResolver())
+                .registerInputStream(IMAGE, new ByteArrayInputStream(new byte[0]));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RxJavaHooks.reset();
+    }
+
+    @Test
+    public void chooserCropResult_releasesActivitiesAndBitmaps() throws Exception {
+        for (int i = 0; i < WARM_UP; ++i)
+            runSession();
+        assertNothingRetained("after warm up");
+
+        for (int i = WARM_UP; i < ITERATIONS; ++i)
+            runSession();
+        assertNothingRetained("at the end");
+    }
+
+    // =========== flow ============
+
+    private void runSession() {
+        chooseAndAutoCrop();
+        leaveDuringAutoCrop();
+        cropInteractivelyAndLeave();
+        leaveWhilePreviewLoading();
+        leaveBeforePreview();
+    }
+
+    /**
+     * Full flow: chooser picks a gallery photo, crop runs headless and result is delivered back to the chooser
+     */
+    private void chooseAndAutoCrop() {
+        Intent start = new Intent(RuntimeEnvironment.application, PhotoChooserCropperActivity.class);
+        start.putExtra("AUTO_CROP", true);
+        ActivityController<PhotoChooserCropperActivity> chooser = Robolectric
+                .buildActivity(PhotoChooserCropperActivity.class).withIntent(start).create().start().resume().visible();
+        track(chooser.get());
+        assertNotNull(permissionManager().getResult());
+
+        chooser.get().onActivityResult(GALLERY_REQUEST_CODE, Activity.RESULT_OK, new Intent().setData(IMAGE));
+        ShadowActivity.IntentForResult forCrop = shadowOf(chooser.get()).getNextStartedActivityForResult();
+        assertNotNull(forCrop);
+
+        ActivityController<CropActivity> crop = Robolectric
+                .buildActivity(CropActivity.class).withIntent(forCrop.intent).create().start().resume();
+        track(crop.get());
+        computation.triggerActions();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        ShadowActivity cropShadow = shadowOf(crop.get());
+        assertEquals(Activity.RESULT_OK, cropShadow.getResultCode());
+        assertNotNull(cropShadow.getResultIntent().getStringExtra("PATH"));
+        assertTrue(crop.get().isFinishing());
+
+        chooser.get().onActivityResult(forCrop.requestCode, cropShadow.getResultCode(), cropShadow.getResultIntent());
+        assertTrue(chooser.get().isFinishing());
+
+        crop.pause().stop().destroy();
+        chooser.pause().stop().destroy();
+        assertNull("Permission manager still holds the chooser", permissionManager().getResult());
+    }
+
+    /**
+     * Headless crop is left before its work had a chance to run
+     */
+    private void leaveDuringAutoCrop() {
+        Intent intent = cropIntent();
+        intent.putExtra("CROP_AUTO", true);
+        ActivityController<CropActivity> crop = Robolectric
+                .buildActivity(CropActivity.class).withIntent(intent).create().start().resume();
+        track(crop.get());
+
+        crop.pause().stop().destroy();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    /**
+     * Crop screen shows the preview, then user leaves without cropping
+     */
+    private void cropInteractivelyAndLeave() {
+        ActivityController<CropActivity> crop = Robolectric
+                .buildActivity(CropActivity.class).withIntent(cropIntent()).create().start().resume().visible();
+        track(crop.get());
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        computation.triggerActions();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        Drawable drawable = crop.get().view.getDrawable();
+        assertTrue(drawable instanceof BitmapDrawable);
+        bitmaps.add(new WeakReference<>(((BitmapDrawable) drawable).getBitmap()));
+
+        crop.pause().stop().destroy();
+    }
+
+    /**
+     * Crop screen is left while its preview is still being decoded
+     */
+    private void leaveWhilePreviewLoading() {
+        ActivityController<CropActivity> crop = Robolectric
+                .buildActivity(CropActivity.class).withIntent(cropIntent()).create().start().resume().visible();
+        track(crop.get());
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        crop.pause().stop().destroy();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    /**
+     * Crop screen is destroyed before its preview loading had a chance to start
+     */
+    private void leaveBeforePreview() {
+        ActivityController<CropActivity> crop = Robolectric
+                .buildActivity(CropActivity.class).withIntent(cropIntent()).create();
+        track(crop.get());
+        crop.destroy();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private Intent cropIntent() {
+        Intent intent = new Intent(RuntimeEnvironment.application, CropActivity.class);
+        intent.putExtra("IMAGE_PATH", IMAGE);
+        intent.putExtra("CROP_SQUARE", true);
+        return intent;
+    }
+
+    private static RxPermissionManager permissionManager() {
+        return RxPermissionManager.getInstance(RuntimeEnvironment.application);
+    }
+
+    // =========== measuring ============
+
+    private void track(Activity activity) {
+        activities.add(new WeakReference<>(activity));
+    }
+
+    /**
+     * Every tracked Activity is destroyed by now, so none of them and none of their Bitmaps may survive GC
+     */
+    private void assertNothingRetained(String when) {
+        collectGarbage();
+
+        int retained = 0;
+        for (WeakReference<Activity> ref : activities)
+            if (ref.get() != null)
+                retained++;
+
+        long bytes = 0;
+        for (WeakReference<Bitmap> ref : bitmaps) {
+            Bitmap bmp = ref.get();
+            if (bmp != null)
+                bytes += bmp.getByteCount();
+        }
+
+        assertEquals("Activities retained " + when, 0, retained);
+        assertEquals("Bitmap bytes retained " + when, 0, bytes);
+    }
+
+    private static void collectGarbage() {
+        for (int i = 0; i < 3; ++i) {
+            WeakReference<Object> sentinel = new WeakReference<>(new Object());
+            for (int attempt = 0; attempt < GC_ATTEMPTS && sentinel.get() != null; ++attempt) {
+                System.gc();
+                System.runFinalization();
+            }
+            assertNull("GC didn't run, explicit GC may be disabled", sentinel.get());
+        }
+    }
+
+    /**
+     * Answers MediaStore queries for the test image: orientation and modification time are both 0
+     */
+    private static class ImageProvider extends ContentProvider {
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(projection);
+            Object[] row = new Object[projection.length];
+            for (int i = 0; i < row.length; ++i)
+                row[i] = 0;
+            cursor.addRow(row);
+            return cursor;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return "image/jpeg";
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+}